@@ -0,0 +1,193 @@
+package com.example.lanscreenstream;
+
+import android.graphics.Bitmap;
+import android.graphics.ColorSpace;
+import android.graphics.PixelFormat;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Ring of capture buffers for the current capture size, shared by the PixelCopy and
+ * ImageReader paths. The pipeline takes one per capture and hands it back after encoding.
+ * Buffers are allocated once per {@link #resize(int, int)} and then reused; buffers from an
+ * older size are dropped as they come back.
+ *
+ * Software formats own one bitmap per slot. {@link Format#HARDWARE} slots own nothing: they
+ * wrap the captured Image's HardwareBuffer without copying and close it on release.
+ */
+public class CaptureBufferPool implements CapturePipeline.Buffers<CaptureBufferPool.Buffer> {
+
+    public enum Format {
+        ARGB_8888(Bitmap.Config.ARGB_8888, PixelFormat.RGBA_8888, 4),
+        RGB_565(Bitmap.Config.RGB_565, PixelFormat.RGB_565, 2),    // half the memory bandwidth
+        HARDWARE(null, PixelFormat.RGBA_8888, 4);                  // ImageReader only, API 29+
+
+        public final Bitmap.Config bitmapConfig;
+        public final int pixelFormat; // ImageReader format
+        public final int bytesPerPixel;
+
+        Format(Bitmap.Config bitmapConfig, int pixelFormat, int bytesPerPixel) {
+            this.bitmapConfig = bitmapConfig;
+            this.pixelFormat = pixelFormat;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+    }
+
+    // Surfaces usually pad rows to 64 bytes; widths on that boundary need no stride fix-up
+    private static final int ROW_ALIGN_BYTES = 64;
+
+    /** One slot of the ring. */
+    public static final class Buffer {
+        final int width, height;
+        private final Bitmap own;        // software formats
+        private Image image;             // hardware: the image backing 'wrapped'
+        private HardwareBuffer hardwareBuffer;
+        private Bitmap wrapped;
+
+        Buffer(int width, int height, Bitmap own) {
+            this.width = width;
+            this.height = height;
+            this.own = own;
+        }
+
+        /** Bitmap holding the captured pixels. */
+        public Bitmap getBitmap() {
+            return own != null ? own : wrapped;
+        }
+
+        void detach() {
+            if (wrapped != null) { wrapped.recycle(); wrapped = null; }
+            if (hardwareBuffer != null) { hardwareBuffer.close(); hardwareBuffer = null; }
+            if (image != null) { image.close(); image = null; }
+        }
+
+        void recycle() {
+            detach();
+            if (own != null) own.recycle();
+        }
+    }
+
+    private final int maxBuffers;
+    private final Format format;
+    private final ArrayDeque<Buffer> free = new ArrayDeque<>();
+    private int width, height;
+    private int allocated; // current-size buffers in circulation
+    private int wanted = 1;
+    private ByteBuffer rowScratch; // compacts padded ImageReader rows; sized once per resolution
+
+    public CaptureBufferPool(int maxBuffers, Format format) {
+        this.maxBuffers = maxBuffers;
+        this.format = format;
+    }
+
+    public Format getFormat() { return format; }
+
+    /** Largest width not above {@code maxWidth} whose rows need no padding in this format. */
+    public int alignWidth(int maxWidth) {
+        int align = ROW_ALIGN_BYTES / format.bytesPerPixel;
+        return Math.max(align, maxWidth - maxWidth % align);
+    }
+
+    /** Number of buffers to keep in circulation; more are allocated lazily on acquire. */
+    public synchronized void setTarget(int count) {
+        wanted = Math.max(1, Math.min(maxBuffers, count));
+    }
+
+    public synchronized void resize(int w, int h) {
+        if (w == width && h == height) return;
+        width = w;
+        height = h;
+        clearFree();
+        allocated = 0;
+        rowScratch = null;
+    }
+
+    /** Allocate the wanted buffers up front, e.g. on an init thread before capture starts. */
+    public synchronized void prefill() {
+        while (allocated < wanted) {
+            free.add(newBuffer());
+            allocated++;
+        }
+    }
+
+    @Override
+    public synchronized Buffer acquire() {
+        Buffer b = free.poll();
+        if (b != null) return b;
+        if (allocated >= wanted || width <= 0 || height <= 0) return null;
+        allocated++;
+        return newBuffer();
+    }
+
+    @Override
+    public synchronized void release(Buffer b) {
+        if (b.width == width && b.height == height) {
+            b.detach();
+            free.add(b);
+        } else {
+            b.recycle();
+        }
+    }
+
+    /**
+     * ImageReader path: move the image into {@code b}. Hardware slots keep the image and wrap
+     * its buffer; software slots copy the pixels (stride-aware) and close the image at once.
+     */
+    public boolean fill(Buffer b, Image image) {
+        if (format == Format.HARDWARE) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+                image.close();
+                return false;
+            }
+            HardwareBuffer hb = image.getHardwareBuffer();
+            Bitmap bmp = hb != null ? Bitmap.wrapHardwareBuffer(hb, ColorSpace.get(ColorSpace.Named.SRGB)) : null;
+            if (bmp == null) {
+                if (hb != null) hb.close();
+                image.close();
+                return false;
+            }
+            b.image = image;
+            b.hardwareBuffer = hb;
+            b.wrapped = bmp;
+            return true;
+        }
+        try {
+            // rowScratch is shared, so hold the lock until the copy out of it is done
+            synchronized (this) {
+                return ImageUtil.copyToBitmap(image, b.own, scratchFor(image));
+            }
+        } finally {
+            image.close();
+        }
+    }
+
+    /** Recycle all idle buffers; ones still in use are recycled when they come back. */
+    public synchronized void clear() {
+        clearFree();
+        allocated = 0;
+        width = height = 0;
+        rowScratch = null;
+    }
+
+    private ByteBuffer scratchFor(Image image) { // caller holds the lock
+        Image.Plane plane = image.getPlanes()[0];
+        if (plane.getRowStride() == image.getWidth() * plane.getPixelStride()) return null;
+        int bytes = image.getWidth() * image.getHeight() * plane.getPixelStride();
+        if (rowScratch == null || rowScratch.capacity() < bytes) rowScratch = ByteBuffer.allocateDirect(bytes);
+        return rowScratch;
+    }
+
+    private Buffer newBuffer() {
+        Bitmap own = format.bitmapConfig != null ? Bitmap.createBitmap(width, height, format.bitmapConfig) : null;
+        return new Buffer(width, height, own);
+    }
+
+    private void clearFree() {
+        Buffer b;
+        while ((b = free.poll()) != null) b.recycle();
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.lanscreenstream;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Capture -> encode scheduling, kept free of Android types so the same code runs on the
+ * device (PixelCopy, Bitmap, HandlerThread, ExecutorService) and in the JVM simulator used by
+ * the unit tests (PipelineSimulator).
+ *
+ * Every frame interval one capture is started on the clock's thread, unless the previous
+ * one is still copying or no buffer is free. A finished capture goes to a single hand-off
+ * slot; if the slot still holds an older frame that one is dropped, so encoders always get
+ * the latest frame. Up to {@link #setEncoderSlots(int)} encodes run at once, and a frame that
+ * finishes after a newer one is discarded rather than published.
+ */
+public class CapturePipeline<B> {
+
+    /** Time source and scheduler; capture callbacks must arrive on the same thread. */
+    public interface Clock {
+        long nowMs(); // wall-clock epoch ms, used for frame timestamps
+        void postDelayed(Runnable task, long delayMs);
+    }
+
+    public interface CaptureSource<T> {
+        interface Callback { void onCaptured(boolean success); }
+
+        boolean isReady();
+        void capture(T buffer, Callback callback);
+    }
+
+    public interface Encoder<T> {
+        interface Callback { void onEncoded(byte[] jpeg); } // null if encoding failed
+
+        void encode(T buffer, Callback callback); // may call back on any thread
+    }
+
+    public interface Buffers<T> {
+        T acquire(); // null if none is free
+        void release(T buffer);
+    }
+
+    public interface Listener {
+        void onFramePublished(Frame frame);
+    }
+
+    /** Counters since {@link #start()}. */
+    public static final class Stats {
+        public final long captured;       // captures that completed successfully
+        public final long published;      // encoded frames that became the latest frame
+        public final long skippedBusy;    // ticks skipped: copy in flight or no free buffer
+        public final long droppedStale;   // captured frames replaced before an encoder took them
+        public final long droppedLate;    // encoded frames older than the one already published
+        public final long failures;       // capture or encode errors
+
+        Stats(long captured, long published, long skippedBusy, long droppedStale,
+              long droppedLate, long failures) {
+            this.captured = captured;
+            this.published = published;
+            this.skippedBusy = skippedBusy;
+            this.droppedStale = droppedStale;
+            this.droppedLate = droppedLate;
+            this.failures = failures;
+        }
+    }
+
+    private static final class Pending<T> {
+        final T buffer;
+        final long seq;
+        final long captureTimeMs;
+
+        Pending(T buffer, long seq, long captureTimeMs) {
+            this.buffer = buffer;
+            this.seq = seq;
+            this.captureTimeMs = captureTimeMs;
+        }
+    }
+
+    private final Clock clock;
+    private final CaptureSource<B> source;
+    private final Buffers<B> buffers;
+    private final Encoder<B> encoder;
+    private final AtomicReference<Frame> latest = new AtomicReference<>(null);
+    private volatile Listener listener;
+
+    // Guarded by this
+    private long frameIntervalMs = 33;
+    private int encoderSlots = 1;
+    private int busyEncoders;
+    private boolean copying;
+    private boolean running;
+    private int generation;
+    private long captureSeq;
+    private Pending<B> pending;
+    private long captured, published, skippedBusy, droppedStale, droppedLate, failures;
+
+    public CapturePipeline(Clock clock, CaptureSource<B> source, Buffers<B> buffers, Encoder<B> encoder) {
+        this.clock = clock;
+        this.source = source;
+        this.buffers = buffers;
+        this.encoder = encoder;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void setFrameIntervalMs(long frameIntervalMs) {
+        this.frameIntervalMs = Math.max(1, frameIntervalMs);
+    }
+
+    public void setEncoderSlots(int slots) {
+        synchronized (this) {
+            encoderSlots = Math.max(1, slots);
+        }
+        dispatchEncode();
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        captured = published = skippedBusy = droppedStale = droppedLate = failures = 0;
+        final int gen = ++generation;
+        clock.postDelayed(new Runnable() {
+            @Override public void run() {
+                long interval;
+                synchronized (CapturePipeline.this) {
+                    if (!running || gen != generation) return;
+                    interval = frameIntervalMs;
+                }
+                try {
+                    captureOnce();
+                } finally {
+                    clock.postDelayed(this, interval);
+                }
+            }
+        }, 0);
+    }
+
+    public void stop() {
+        Pending<B> drop;
+        synchronized (this) {
+            running = false;
+            drop = pending;
+            pending = null;
+        }
+        if (drop != null) buffers.release(drop.buffer);
+    }
+
+    /** Latest published frame, or null before the first one. */
+    public Frame getLatestFrame() {
+        return latest.get();
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(captured, published, skippedBusy, droppedStale, droppedLate, failures);
+    }
+
+    private void captureOnce() {
+        final B buffer;
+        final long seq;
+        final long captureTimeMs;
+        synchronized (this) {
+            if (!source.isReady()) return;
+            if (copying) {
+                skippedBusy++;
+                return;
+            }
+            buffer = buffers.acquire();
+            if (buffer == null) {
+                skippedBusy++;
+                return;
+            }
+            copying = true;
+            seq = ++captureSeq;
+            captureTimeMs = clock.nowMs();
+        }
+        try {
+            source.capture(buffer, success -> onCaptured(buffer, seq, captureTimeMs, success));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                copying = false;
+                failures++;
+            }
+            buffers.release(buffer);
+        }
+    }
+
+    private void onCaptured(B buffer, long seq, long captureTimeMs, boolean success) {
+        B release = null;
+        synchronized (this) {
+            copying = false;
+            if (!success) {
+                failures++;
+                release = buffer;
+            } else if (!running) {
+                release = buffer;
+            } else {
+                captured++;
+                if (pending != null) {
+                    droppedStale++;
+                    release = pending.buffer;
+                }
+                pending = new Pending<>(buffer, seq, captureTimeMs);
+            }
+        }
+        if (release != null) buffers.release(release);
+        dispatchEncode();
+    }
+
+    private void dispatchEncode() {
+        final Pending<B> job;
+        synchronized (this) {
+            if (pending == null || busyEncoders >= encoderSlots) return;
+            job = pending;
+            pending = null;
+            busyEncoders++;
+        }
+        try {
+            encoder.encode(job.buffer, jpeg -> onEncoded(job, jpeg));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                busyEncoders--;
+                failures++;
+            }
+            buffers.release(job.buffer);
+        }
+    }
+
+    private void onEncoded(Pending<B> job, byte[] jpeg) {
+        buffers.release(job.buffer);
+        Frame frame = null;
+        if (jpeg != null) {
+            Frame encoded = new Frame(jpeg, job.seq, job.captureTimeMs, clock.nowMs());
+            // With several encoders frames can finish out of order; keep the newest
+            Frame now = latest.accumulateAndGet(encoded,
+                    (cur, next) -> cur == null || next.seq > cur.seq ? next : cur);
+            if (now == encoded) frame = encoded;
+        }
+        synchronized (this) {
+            busyEncoders--;
+            if (jpeg == null) failures++;
+            else if (frame != null) published++;
+            else droppedLate++;
+        }
+        Listener l = listener;
+        if (frame != null && l != null) l.onFramePublished(frame);
+        dispatchEncode();
+    }
+}
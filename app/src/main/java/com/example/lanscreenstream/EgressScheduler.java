@@ -0,0 +1,156 @@
+package com.example.lanscreenstream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Server-wide egress budget shared by all stream connections.
+ *
+ * A global token bucket caps total bytes/s. Each viewer also has its own bucket refilled at
+ * its fair share, so when the budget is too small a viewer skips frames (lower fps) instead
+ * of stalling everyone. Every viewer is first guaranteed about one frame per second; the rest
+ * goes to higher priority tiers first, then equally within a tier. Nobody gets more than it
+ * can use at full frame rate and whatever is left is spread over all viewers.
+ */
+public class EgressScheduler {
+
+    public static final int TIER_NORMAL = 0;
+    public static final int TIER_PRIORITY = 1; // e.g. the presenter's monitor
+
+    // Bucket depth expressed as time at the refill rate
+    private static final long BURST_MS = 250;
+
+    /** Monotonic time source; replaced in tests. */
+    interface Ticker {
+        long nanoTime();
+    }
+
+    /** One viewer's registration; obtained from {@link #register(int)}. */
+    public static final class Client {
+        final int tier;
+        double demandBps;   // bytes/s at full frame rate, 0 until the first frame
+        double floorBps;    // about one frame per second
+        double shareBps;
+        double tokens = Double.MAX_VALUE; // starts full: first frame goes out right away
+        long lastRefillNs;
+
+        Client(int tier, long nowNs) {
+            this.tier = tier;
+            this.lastRefillNs = nowNs;
+        }
+    }
+
+    private final List<Client> clients = new ArrayList<>();
+    private final Ticker ticker;
+    private long budgetBps;
+    private double tokens = Double.MAX_VALUE;
+    private long lastRefillNs;
+
+    /** @param budgetBytesPerSec total egress for all viewers; 0 or less means unlimited */
+    public EgressScheduler(long budgetBytesPerSec) {
+        this(budgetBytesPerSec, System::nanoTime);
+    }
+
+    EgressScheduler(long budgetBytesPerSec, Ticker ticker) {
+        this.budgetBps = budgetBytesPerSec;
+        this.ticker = ticker;
+        this.lastRefillNs = ticker.nanoTime();
+    }
+
+    public synchronized void setBudget(long budgetBytesPerSec) {
+        this.budgetBps = budgetBytesPerSec;
+        recomputeShares();
+    }
+
+    public synchronized Client register(int tier) {
+        Client c = new Client(tier, ticker.nanoTime());
+        clients.add(c);
+        recomputeShares();
+        return c;
+    }
+
+    public synchronized void unregister(Client c) {
+        if (clients.remove(c)) recomputeShares();
+    }
+
+    /** Registered viewers; for tests. */
+    synchronized int clientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Ask to send one frame of {@code frameBytes} to {@code c}, which wants at most one frame
+     * every {@code minIntervalMs}. Returns true and charges the budget if it fits; false means
+     * skip this frame and retry later with a newer one.
+     */
+    public synchronized boolean trySend(Client c, int frameBytes, long minIntervalMs) {
+        if (budgetBps <= 0) return true;
+
+        double demand = frameBytes * 1000.0 / Math.max(1, minIntervalMs);
+        if (Math.abs(demand - c.demandBps) > c.demandBps * 0.1) {
+            c.demandBps = demand;
+            c.floorBps = Math.min(demand, frameBytes);
+            recomputeShares();
+        }
+
+        long now = ticker.nanoTime();
+        // A frame larger than the bucket would never fit, so let a full bucket pass it
+        double globalCap = Math.max(frameBytes, budgetBps * BURST_MS / 1000.0);
+        double clientCap = Math.max(frameBytes, c.shareBps * BURST_MS / 1000.0);
+        tokens = refill(tokens, budgetBps, globalCap, now - lastRefillNs);
+        lastRefillNs = now;
+        c.tokens = refill(c.tokens, c.shareBps, clientCap, now - c.lastRefillNs);
+        c.lastRefillNs = now;
+
+        if (tokens < frameBytes || c.tokens < frameBytes) return false;
+        tokens -= frameBytes;
+        c.tokens -= frameBytes;
+        return true;
+    }
+
+    private static double refill(double tokens, double rateBps, double cap, long elapsedNs) {
+        return Math.min(cap, tokens + rateBps * elapsedNs / 1e9);
+    }
+
+    /** Floors first, then strict priority between tiers and water-filling within a tier. */
+    private void recomputeShares() {
+        if (clients.isEmpty()) return;
+        double remaining = Math.max(0, budgetBps);
+
+        double floors = 0;
+        for (Client c : clients) floors += c.floorBps;
+        double scale = floors > remaining ? remaining / floors : 1.0;
+        for (Client c : clients) {
+            c.shareBps = c.floorBps * scale;
+            remaining -= c.shareBps;
+        }
+
+        List<Client> order = new ArrayList<>(clients);
+        // Higher tier first; within a tier the smallest unmet demand is satisfied first
+        Collections.sort(order, (a, b) -> a.tier != b.tier
+                ? Integer.compare(b.tier, a.tier)
+                : Double.compare(unmet(a), unmet(b)));
+
+        int i = 0;
+        while (i < order.size()) {
+            int tier = order.get(i).tier;
+            int end = i;
+            while (end < order.size() && order.get(end).tier == tier) end++;
+            for (int k = i; k < end; k++) {
+                Client c = order.get(k);
+                double extra = Math.min(unmet(c), remaining / (end - k));
+                c.shareBps += extra;
+                remaining -= extra;
+            }
+            i = end;
+        }
+
+        double bonus = remaining / order.size();
+        for (Client c : order) c.shareBps += bonus;
+    }
+
+    private static double unmet(Client c) {
+        return c.demandBps > 0 ? c.demandBps - c.shareBps : Double.MAX_VALUE;
+    }
+}
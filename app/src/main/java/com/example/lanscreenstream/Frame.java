@@ -0,0 +1,16 @@
+package com.example.lanscreenstream;
+
+/** One encoded frame plus the wall-clock timestamps (epoch ms) used for latency tracing. */
+public final class Frame {
+    public final byte[] jpeg;
+    public final long seq;           // 0 for the placeholder, 1.. for captured frames
+    public final long captureTimeMs;
+    public final long encodeTimeMs;
+
+    public Frame(byte[] jpeg, long seq, long captureTimeMs, long encodeTimeMs) {
+        this.jpeg = jpeg;
+        this.seq = seq;
+        this.captureTimeMs = captureTimeMs;
+        this.encodeTimeMs = encodeTimeMs;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.lanscreenstream;
+
+import android.app.Application;
+
+/** Tracks the LAN address for the whole process, so it is known before a stream starts. */
+public class LanScreenStreamApp extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NetworkUtils.startTracking(this);
+    }
+}
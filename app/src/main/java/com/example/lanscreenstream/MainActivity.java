@@ -84,7 +84,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void startStreamService() {
-        String deviceIp = NetworkUtils.getLocalIpAddress(this);
+        String deviceIp = NetworkUtils.getCachedIpAddress(this);
         String deviceUrl = buildHttp(deviceIp, SERVER_PORT);
 
         // Show helpful text before starting, in case user wants to copy it
@@ -103,7 +103,7 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void updateUrlDisplay() {
-        String deviceIp = NetworkUtils.getLocalIpAddress(this);
+        String deviceIp = NetworkUtils.getCachedIpAddress(this);
         tvUrl.setText(buildUiUrlText(deviceIp, SERVER_PORT));
     }
 
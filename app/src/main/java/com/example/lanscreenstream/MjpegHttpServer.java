@@ -4,117 +4,385 @@ import fi.iki.elonen.NanoHTTPD;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 public class MjpegHttpServer extends NanoHTTPD {
 
     public interface FrameSource {
-        byte[] getLatestJpeg(); // may return null if no frame yet
+        Frame getLatestFrame(); // may return null if no frame yet
     }
 
+    // Multipart boundary token; each part is delimited by "--" + BOUNDARY
+    private static final String BOUNDARY = "frame";
+
+    // Low-latency send buffer: about one frame, within sane bounds
+    private static final int MIN_SEND_BUFFER = 16 * 1024;
+    private static final int MAX_SEND_BUFFER = 512 * 1024;
+
+    // Bytes charged per part on top of the JPEG (delimiter and part headers)
+    private static final int PART_OVERHEAD = 256;
+    // How often a viewer that is over its egress share checks again for a newer frame
+    private static final long THROTTLE_POLL_MS = 10;
+    // Unchanged frames are not re-sent, except this often so a gone viewer is noticed
+    private static final long REPEAT_AFTER_MS = 1_000;
+
     private volatile FrameSource frameSource;
-    private final int fps;
+    private volatile StreamStats stats;
+    private volatile long frameDelayMs;
+    private volatile boolean lowLatency;
+    private final EgressScheduler egress = new EgressScheduler(0);
 
     public MjpegHttpServer(int port, int fps) {
         super(port);
-        this.fps = Math.max(1, Math.min(fps, 30));
+        setFps(fps);
+    }
+
+    /** Most frames per second sent to each viewer (1..30); applies to open streams too. */
+    public void setFps(int fps) {
+        this.frameDelayMs = 1000L / Math.max(1, Math.min(fps, 30));
+    }
+
+    private long frameDelayMs() {
+        return frameDelayMs;
+    }
+
+    /**
+     * Total bytes/s all stream connections may send together (0 = unlimited). Viewers share
+     * it equally, {@code ?priority=1} viewers first; viewers over their share drop frames.
+     */
+    public void setEgressBudget(long bytesPerSec) {
+        egress.setBudget(bytesPerSec);
     }
 
     public void setFrameSource(FrameSource src) {
         this.frameSource = src;
     }
 
+    public void setStats(StreamStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Low-latency transport: disable Nagle, size the socket send buffer to about one frame
+     * and write each frame (closed by the next boundary) in one go instead of letting
+     * NanoHTTPD pump it through its chunked 16 KB buffer.
+     */
+    public void setLowLatency(boolean lowLatency) {
+        this.lowLatency = lowLatency;
+    }
+
+    /** For tests: every open stream is registered here until it ends. */
+    EgressScheduler getEgress() {
+        return egress;
+    }
+
+    private Frame latestFrame() {
+        FrameSource src = frameSource;
+        return src != null ? src.getLatestFrame() : null;
+    }
+
+    @Override
+    protected ClientHandler createClientHandler(Socket finalAccept, InputStream inputStream) {
+        if (lowLatency) {
+            Frame f = latestFrame();
+            int frameBytes = f != null ? f.jpeg.length + 512 : MIN_SEND_BUFFER;
+            try {
+                finalAccept.setTcpNoDelay(true);
+                finalAccept.setSendBufferSize(Math.max(MIN_SEND_BUFFER, Math.min(MAX_SEND_BUFFER, frameBytes)));
+            } catch (SocketException ignored) {}
+        }
+        return super.createClientHandler(finalAccept, inputStream);
+    }
+
+    private static int tierOf(IHTTPSession session) {
+        List<String> values = session.getParameters().get("priority");
+        boolean priority = values != null && !values.isEmpty() && "1".equals(values.get(0));
+        return priority ? EgressScheduler.TIER_PRIORITY : EgressScheduler.TIER_NORMAL;
+    }
+
     @Override
     public Response serve(IHTTPSession session) {
         String uri = session.getUri();
         if ("/".equals(uri)) {
+            String query = session.getQueryParameterString();
+            String src = "/stream.mjpg" + (query != null && !query.isEmpty() ? "?" + query.replace("'", "%27") : "");
             String html = "<!doctype html><html><head><meta name='viewport' content='width=device-width,initial-scale=1'>"
                     + "<title>LAN Screen Stream</title>"
                     + "<style>body{margin:0;background:#111;display:flex;align-items:center;justify-content:center;height:100vh}"
                     + "img{max-width:100vw;max-height:100vh}</style></head>"
-                    + "<body><img src='/stream.mjpg' alt='stream'></body></html>";
+                    + "<body><img src='" + src + "' alt='stream'></body></html>";
             return newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8", html);
+        } else if ("/latency".equals(uri)) {
+            return newFixedLengthResponse(Response.Status.OK, "text/html; charset=utf-8", LATENCY_VIEWER_HTML);
         } else if ("/stream.mjpg".equals(uri)) {
-            String boundary = "--frame";
-            InputStream is = new MultipartMjpegStream(boundary, () -> frameSource != null ? frameSource.getLatestJpeg() : null, fps);
-            Response r = newChunkedResponse(Response.Status.OK,
-                    "multipart/x-mixed-replace; boundary=" + boundary, is);
+            String mime = "multipart/x-mixed-replace; boundary=" + BOUNDARY;
+            EgressScheduler.Client client = egress.register(tierOf(session));
+            Response r;
+            if (lowLatency) {
+                r = new FrameFlushingResponse(mime, this::latestFrame, this::frameDelayMs, egress, client);
+            } else {
+                InputStream is = new MultipartMjpegStream(this::latestFrame, this::frameDelayMs, egress, client);
+                r = newChunkedResponse(Response.Status.OK, mime, is);
+            }
             r.addHeader("Cache-Control", "no-cache, no-store, must-revalidate");
             r.addHeader("Pragma", "no-cache");
             r.addHeader("Connection", "close");
             return r;
+        } else if ("/clock".equals(uri)) {
+            Response r = newFixedLengthResponse(Response.Status.OK, "application/json",
+                    "{\"serverTimeMs\":" + System.currentTimeMillis() + "}");
+            r.addHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+            return r;
+        } else if ("/stats".equals(uri)) {
+            StreamStats s = stats;
+            Response r = newFixedLengthResponse(Response.Status.OK, "application/json",
+                    s != null ? s.toJson() : "{}");
+            r.addHeader("Cache-Control", "no-cache, no-store, must-revalidate");
+            return r;
         } else {
             return newFixedLengthResponse(Response.Status.NOT_FOUND, "text/plain", "Not found");
         }
     }
 
+    /**
+     * Headers of one multipart part. Besides the JPEG headers each part carries its sequence
+     * number and capture/encode/send timestamps so viewers can trace end-to-end latency.
+     */
+    private static byte[] partHeader(Frame frame, long sendTimeMs) {
+        String header =
+                "Content-Type: image/jpeg\r\n" +
+                "Content-Length: " + frame.jpeg.length + "\r\n" +
+                "X-Frame-Seq: " + frame.seq + "\r\n" +
+                "X-Capture-Time: " + frame.captureTimeMs + "\r\n" +
+                "X-Encode-Time: " + frame.encodeTimeMs + "\r\n" +
+                "X-Send-Time: " + sendTimeMs + "\r\n\r\n";
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] delimiter(boolean leadingCrlf) {
+        return ((leadingCrlf ? "\r\n" : "") + "--" + BOUNDARY + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
     private static class MultipartMjpegStream extends InputStream {
-        interface Supplier { byte[] get(); }
+        interface Supplier { Frame get(); }
+        interface Pacer { long frameDelayMs(); }
+
+        // Give up on a viewer if no frame (not even the placeholder) shows up for this long
+        private static final long FIRST_FRAME_TIMEOUT_MS = 10_000;
 
-        private final String boundary;
         private final Supplier supplier;
-        private final long frameDelayMs;
+        private final Pacer pacer;
+        private final EgressScheduler egress;
+        private final EgressScheduler.Client client;
 
         private byte[] currentChunk;
         private int idx = 0;
+        private boolean sawFrame;
+        private long lastSeq = -1;
+        private long lastSentMs;
 
-        MultipartMjpegStream(String boundary, Supplier supplier, int fps) {
-            this.boundary = boundary;
+        MultipartMjpegStream(Supplier supplier, Pacer pacer, EgressScheduler egress, EgressScheduler.Client client) {
             this.supplier = supplier;
-            this.frameDelayMs = 1000L / Math.max(1, fps);
-            buildNextChunk(); // try first
+            this.pacer = pacer;
+            this.egress = egress;
+            this.client = client;
+            buildNextChunk(); // try first, without waiting
+        }
+
+        /** False if there is no new frame yet or this viewer is over its egress share. */
+        private boolean buildNextChunk() {
+            Frame frame = supplier.get();
+            if (frame == null) return false;
+            sawFrame = true;
+            long now = System.currentTimeMillis();
+            // Don't spend egress on a frame this viewer already has
+            if (frame.seq == lastSeq && now - lastSentMs < REPEAT_AFTER_MS) return false;
+            if (!egress.trySend(client, frame.jpeg.length + PART_OVERHEAD, pacer.frameDelayMs())) return false;
+            lastSeq = frame.seq;
+            lastSentMs = now;
+            byte[] delim = delimiter(false);
+            byte[] head = partHeader(frame, now);
+            byte[] jpeg = frame.jpeg;
+            byte[] tail = "\r\n".getBytes(StandardCharsets.US_ASCII);
+            currentChunk = new byte[delim.length + head.length + jpeg.length + tail.length];
+            int pos = 0;
+            System.arraycopy(delim, 0, currentChunk, pos, delim.length); pos += delim.length;
+            System.arraycopy(head, 0, currentChunk, pos, head.length); pos += head.length;
+            System.arraycopy(jpeg, 0, currentChunk, pos, jpeg.length); pos += jpeg.length;
+            System.arraycopy(tail, 0, currentChunk, pos, tail.length);
+            idx = 0;
+            return true;
         }
 
-        private void buildNextChunk() {
+        /**
+         * Make sure there are unread bytes in currentChunk. NanoHTTPD ends the response on a
+         * read of 0 or -1, so wait for the first frame instead of returning early.
+         */
+        private boolean ensureChunk() {
             try {
-                byte[] jpeg = supplier.get();
-                if (jpeg == null) {
-                    Thread.sleep(frameDelayMs);
-                    return;
+                if (currentChunk == null) {
+                    long deadline = System.currentTimeMillis() + FIRST_FRAME_TIMEOUT_MS;
+                    while (!buildNextChunk()) {
+                        if (!sawFrame && System.currentTimeMillis() >= deadline) return false;
+                        Thread.sleep(sawFrame ? THROTTLE_POLL_MS : pacer.frameDelayMs());
+                    }
+                } else if (idx >= currentChunk.length) {
+                    Thread.sleep(pacer.frameDelayMs());
+                    // Wait for a new frame; over budget, skip frames until this viewer's share refills
+                    while (!buildNextChunk()) Thread.sleep(THROTTLE_POLL_MS);
                 }
-                String header =
-                        boundary + "\r\n" +
-                        "Content-Type: image/jpeg\r\n" +
-                        "Content-Length: " + jpeg.length + "\r\n\r\n";
-                byte[] head = header.getBytes(StandardCharsets.US_ASCII);
-                byte[] tail = "\r\n".getBytes(StandardCharsets.US_ASCII);
-                currentChunk = new byte[head.length + jpeg.length + tail.length];
-                System.arraycopy(head, 0, currentChunk, 0, head.length);
-                System.arraycopy(jpeg, 0, currentChunk, head.length, jpeg.length);
-                System.arraycopy(tail, 0, currentChunk, head.length + jpeg.length, tail.length);
-                idx = 0;
-            } catch (InterruptedException ignored) {}
+                return true;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
 
         @Override
         public int read() throws IOException {
-            if (currentChunk == null) {
-                buildNextChunk();
-                return -1;
-            }
-            if (idx >= currentChunk.length) {
-                try { Thread.sleep(frameDelayMs); } catch (InterruptedException ignored) {}
-                buildNextChunk();
-                if (currentChunk == null) return -1;
-            }
+            if (!ensureChunk()) return -1;
             return currentChunk[idx++] & 0xFF;
         }
 
         @Override
         public int read(byte[] b, int off, int len) throws IOException {
-            if (currentChunk == null) {
-                buildNextChunk();
-                return 0;
-            }
-            if (idx >= currentChunk.length) {
-                try { Thread.sleep(frameDelayMs); } catch (InterruptedException ignored) {}
-                buildNextChunk();
-                if (currentChunk == null) return 0;
-            }
+            if (!ensureChunk()) return -1;
             int toCopy = Math.min(len, currentChunk.length - idx);
             System.arraycopy(currentChunk, idx, b, off, toCopy);
             idx += toCopy;
             return toCopy;
         }
+
+        @Override
+        public void close() {
+            egress.unregister(client);
+        }
+    }
+
+    /**
+     * Low-latency stream response: writes straight to the socket, one write per frame, and
+     * closes each part with the next delimiter so the browser can show it without waiting
+     * for the following frame. Only new frames are sent, plus a periodic repeat so a gone
+     * viewer is noticed.
+     */
+    private static class FrameFlushingResponse extends Response {
+        private static final long FIRST_FRAME_TIMEOUT_MS = 10_000;
+        private static final long POLL_MS = 5;
+
+        private final MultipartMjpegStream.Supplier supplier;
+        private final MultipartMjpegStream.Pacer pacer;
+        private final EgressScheduler egress;
+        private final EgressScheduler.Client client;
+
+        FrameFlushingResponse(String mimeType, MultipartMjpegStream.Supplier supplier,
+                              MultipartMjpegStream.Pacer pacer,
+                              EgressScheduler egress, EgressScheduler.Client client) {
+            super(Response.Status.OK, mimeType, null, -1);
+            this.supplier = supplier;
+            this.pacer = pacer;
+            this.egress = egress;
+            this.client = client;
+        }
+
+        @Override
+        protected void send(OutputStream out) {
+            try {
+                StringBuilder sb = new StringBuilder("HTTP/1.1 200 OK\r\n");
+                sb.append("Content-Type: ").append(getMimeType()).append("\r\n");
+                for (String name : new String[]{"Cache-Control", "Pragma", "Connection"}) {
+                    String value = getHeader(name);
+                    if (value != null) sb.append(name).append(": ").append(value).append("\r\n");
+                }
+                sb.append("\r\n");
+                out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+                out.write(delimiter(false));
+                out.flush();
+
+                long deadline = System.currentTimeMillis() + FIRST_FRAME_TIMEOUT_MS;
+                long lastSeq = -1;
+                long lastSentMs = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    Frame frame = supplier.get();
+                    long now = System.currentTimeMillis();
+                    if (frame == null) {
+                        if (now >= deadline) return;
+                        Thread.sleep(POLL_MS);
+                        continue;
+                    }
+                    if (frame.seq == lastSeq && now - lastSentMs < REPEAT_AFTER_MS) {
+                        Thread.sleep(POLL_MS);
+                        continue;
+                    }
+                    long frameDelayMs = pacer.frameDelayMs();
+                    if (!egress.trySend(client, frame.jpeg.length + PART_OVERHEAD, frameDelayMs)) {
+                        Thread.sleep(THROTTLE_POLL_MS); // over budget: skip to a newer frame
+                        continue;
+                    }
+
+                    byte[] head = partHeader(frame, now);
+                    byte[] tail = delimiter(true);
+                    byte[] part = new byte[head.length + frame.jpeg.length + tail.length];
+                    System.arraycopy(head, 0, part, 0, head.length);
+                    System.arraycopy(frame.jpeg, 0, part, head.length, frame.jpeg.length);
+                    System.arraycopy(tail, 0, part, head.length + frame.jpeg.length, tail.length);
+                    out.write(part);
+                    out.flush();
+                    lastSeq = frame.seq;
+                    lastSentMs = now;
+
+                    long wait = frameDelayMs - (System.currentTimeMillis() - now);
+                    if (wait > 0) Thread.sleep(wait);
+                }
+            } catch (IOException e) {
+                // viewer went away
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                egress.unregister(client);
+            }
+        }
     }
-}
\ No newline at end of file
+
+    // Viewer that parses the multipart stream itself to read the per-frame headers, syncs
+    // its clock against /clock and overlays capture->encode->send->display latency.
+    private static final String LATENCY_VIEWER_HTML =
+            "<!doctype html><html><head><meta name='viewport' content='width=device-width,initial-scale=1'>"
+            + "<title>LAN Screen Stream (latency)</title>"
+            + "<style>body{margin:0;background:#111;display:flex;align-items:center;justify-content:center;height:100vh}"
+            + "img{max-width:100vw;max-height:100vh}"
+            + "#o{position:fixed;top:8px;left:8px;padding:6px 8px;background:rgba(0,0,0,.65);color:#7f7;"
+            + "font:12px monospace;white-space:pre}</style></head>"
+            + "<body><img id='v' alt='stream'><div id='o'>syncing clock...</div><script>"
+            + "var off=0,rtt=0,v=document.getElementById('v'),o=document.getElementById('o');"
+            + "function now(){return Date.now()+off;}"
+            + "async function sync(){var best=1e9;for(var i=0;i<8;i++){var t0=Date.now();"
+            + "var j=await (await fetch('/clock',{cache:'no-store'})).json();var t1=Date.now();"
+            + "if(t1-t0<best){best=t1-t0;off=j.serverTimeMs-(t0+t1)/2;}}rtt=best;}"
+            + "function idx(b,p){for(var i=0;i+p.length<=b.length;i++){var k=0;"
+            + "while(k<p.length&&b[i+k]===p[k])k++;if(k===p.length)return i;}return -1;}"
+            + "function hdrs(t){var h={};t.split(/\\r?\\n/).forEach(function(l){var c=l.indexOf(':');"
+            + "if(c>0)h[l.slice(0,c).trim().toLowerCase()]=l.slice(c+1).trim();});return h;}"
+            + "var shown=0,t0=Date.now(),fps=0;"
+            + "function show(jpeg,h,recv){var u=URL.createObjectURL(new Blob([jpeg],{type:'image/jpeg'}));"
+            + "var old=v.src;v.src=u;if(old)URL.revokeObjectURL(old);"
+            + "v.decode().then(function(){var d=now(),cap=+h['x-capture-time'],enc=+h['x-encode-time'],"
+            + "snd=+h['x-send-time'];shown++;if(Date.now()-t0>=1000){fps=shown*1000/(Date.now()-t0);shown=0;t0=Date.now();}"
+            + "o.textContent='seq '+h['x-frame-seq']+'  '+fps.toFixed(1)+' fps  clock rtt '+rtt+' ms\\n'"
+            + "+'capture->encode '+(enc-cap)+' ms\\n'+'encode->send    '+(snd-enc)+' ms\\n'"
+            + "+'send->receive   '+Math.round(recv-snd)+' ms\\n'+'receive->display '+Math.round(d-recv)+' ms\\n'"
+            + "+'total           '+Math.round(d-cap)+' ms';}).catch(function(){});}"
+            + "async function run(){await sync();var r=(await fetch('/stream.mjpg'+location.search,{cache:'no-store'})).body.getReader();"
+            + "var buf=new Uint8Array(0),sep=[13,10,13,10],h=null,need=0,dec=new TextDecoder();"
+            + "for(;;){var c=await r.read();if(c.done)break;var nb=new Uint8Array(buf.length+c.value.length);"
+            + "nb.set(buf);nb.set(c.value,buf.length);buf=nb;"
+            + "for(;;){if(!h){var e=idx(buf,sep);if(e<0)break;h=hdrs(dec.decode(buf.subarray(0,e)));"
+            + "buf=buf.subarray(e+4);need=parseInt(h['content-length'])||0;if(!need){h=null;continue;}}"
+            + "if(buf.length<need)break;show(buf.slice(0,need),h,now());buf=buf.subarray(need);h=null;}}"
+            + "o.textContent='stream ended';}"
+            + "run().catch(function(e){o.textContent='error: '+e;});"
+            + "</script></body></html>";
+}
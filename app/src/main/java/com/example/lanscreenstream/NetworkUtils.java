@@ -6,6 +6,7 @@ import android.net.LinkAddress;
 import android.net.LinkProperties;
 import android.net.Network;
 import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Build;
 
 import java.net.Inet4Address;
@@ -13,10 +14,72 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.List;
 
 public class NetworkUtils {
 
+    // Last LAN address reported by the ConnectivityManager callback; null means "rescan".
+    private static volatile String cachedIp;
+    private static volatile ConnectivityManager.NetworkCallback callback;
+
+    /**
+     * Keep {@link #getCachedIpAddress(Context)} up to date from Wi-Fi/Ethernet link changes,
+     * so callers don't have to walk every network and interface on the hot path.
+     */
+    public static synchronized void startTracking(Context ctx) {
+        if (callback != null) return;
+        ConnectivityManager cm = (ConnectivityManager) ctx.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .addTransportType(NetworkCapabilities.TRANSPORT_ETHERNET)
+                .build();
+        callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties props) {
+                String ip = firstIpv4(props);
+                if (ip != null) cachedIp = ip;
+            }
+
+            @Override
+            public void onLost(Network network) {
+                cachedIp = null;
+            }
+        };
+        try {
+            cm.registerNetworkCallback(request, callback);
+        } catch (RuntimeException e) {
+            callback = null;
+            e.printStackTrace();
+        }
+    }
+
+    /** Address last reported to {@link #startTracking(Context)}, or null if none yet; never scans. */
+    public static String peekCachedIpAddress() {
+        return cachedIp;
+    }
+
+    /**
+     * Cached address from {@link #startTracking(Context)}, falling back to a full scan. Scan
+     * results aren't cached: they may be a cellular or tether address that no callback updates.
+     */
+    public static String getCachedIpAddress(Context ctx) {
+        String ip = cachedIp;
+        return ip != null ? ip : getLocalIpAddress(ctx);
+    }
+
+    private static String firstIpv4(LinkProperties props) {
+        if (props == null) return null;
+        for (LinkAddress la : props.getLinkAddresses()) {
+            InetAddress addr = la.getAddress();
+            if (addr instanceof Inet4Address && !addr.isLoopbackAddress()) {
+                return addr.getHostAddress();
+            }
+        }
+        return null;
+    }
+
     public static String getLocalIpAddress(Context ctx) {
         try {
             ConnectivityManager cm = (ConnectivityManager) ctx.getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -25,15 +88,8 @@ public class NetworkUtils {
                     NetworkCapabilities caps = cm.getNetworkCapabilities(network);
                     if (caps == null) continue;
                     if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) || caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
-                        LinkProperties props = cm.getLinkProperties(network);
-                        if (props == null) continue;
-                        List<LinkAddress> addrs = props.getLinkAddresses();
-                        for (LinkAddress la : addrs) {
-                            InetAddress addr = la.getAddress();
-                            if (addr instanceof Inet4Address && !addr.isLoopbackAddress()) {
-                                return addr.getHostAddress();
-                            }
-                        }
+                        String ip = firstIpv4(cm.getLinkProperties(network));
+                        if (ip != null) return ip;
                     }
                 }
             }
@@ -26,17 +26,34 @@ public class NotificationHelper {
         }
     }
 
-    public static Notification buildForeground(Context ctx, String url) {
+    /**
+     * Foreground notification with the stream URL and, if not null, the performance tier.
+     * A null url means the address is still being looked up.
+     */
+    public static Notification buildForeground(Context ctx, String url, String tierLabel) {
         ensureChannel(ctx);
-        Intent intent = new Intent(Intent.ACTION_VIEW, android.net.Uri.parse(url));
-        PendingIntent pi = PendingIntent.getActivity(ctx, 0, intent, PendingIntent.FLAG_IMMUTABLE);
-
-        return new NotificationCompat.Builder(ctx, CHANNEL_ID)
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(ctx, CHANNEL_ID)
                 .setSmallIcon(android.R.drawable.presence_online)
                 .setContentTitle(ctx.getString(R.string.notif_title))
-                .setContentText(String.format(ctx.getString(R.string.notif_text), url))
-                .setContentIntent(pi)
                 .setOngoing(true)
-                .build();
+                .setOnlyAlertOnce(true);
+        if (url != null) {
+            Intent intent = new Intent(Intent.ACTION_VIEW, android.net.Uri.parse(url));
+            PendingIntent pi = PendingIntent.getActivity(ctx, 0, intent, PendingIntent.FLAG_IMMUTABLE);
+            builder.setContentText(String.format(ctx.getString(R.string.notif_text), url))
+                    .setContentIntent(pi);
+        } else {
+            builder.setContentText(ctx.getString(R.string.notif_text_pending));
+        }
+        if (tierLabel != null) {
+            builder.setSubText(String.format(ctx.getString(R.string.notif_tier), tierLabel));
+        }
+        return builder.build();
+    }
+
+    /** Replace the foreground notification, e.g. after a tier change. */
+    public static void updateForeground(Context ctx, int id, String url, String tierLabel) {
+        NotificationManager nm = (NotificationManager) ctx.getSystemService(Context.NOTIFICATION_SERVICE);
+        nm.notify(id, buildForeground(ctx, url, tierLabel));
     }
 }
\ No newline at end of file
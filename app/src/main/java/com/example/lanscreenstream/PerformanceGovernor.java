@@ -0,0 +1,207 @@
+package com.example.lanscreenstream;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Picks a capture/encode performance tier from thermal status and battery state, so long
+ * sessions settle at a pace the device can sustain instead of running flat out until the
+ * system throttles. Tiers change one step at a time: down quickly, back up only after the
+ * device has stayed cool for a while.
+ */
+public class PerformanceGovernor {
+
+    private static final String TAG = "PerformanceGovernor";
+
+    public enum Tier {
+        FULL("Full", 33, 720, 2),          // ~30 fps
+        BALANCED("Balanced", 50, 720, 1),  // ~20 fps
+        REDUCED("Reduced", 100, 540, 1),   // ~10 fps
+        MINIMAL("Minimal", 200, 360, 1);   // ~5 fps
+
+        public final String label;
+        public final long frameIntervalMs;
+        public final int maxWidth;
+        public final int encoderThreads;
+
+        Tier(String label, long frameIntervalMs, int maxWidth, int encoderThreads) {
+            this.label = label;
+            this.frameIntervalMs = frameIntervalMs;
+            this.maxWidth = maxWidth;
+            this.encoderThreads = encoderThreads;
+        }
+    }
+
+    public interface Listener {
+        void onTierChanged(Tier tier, String reason); // called on the main thread
+    }
+
+    private static final long STEP_DOWN_DWELL_MS = 5_000;
+    private static final long STEP_UP_DWELL_MS   = 60_000;
+    private static final long POLL_INTERVAL_MS   = 5_000;
+    // Forecast headroom (1.0 = throttling) at which we back off before the system does
+    private static final float HEADROOM_BACKOFF = 0.9f;
+    private static final int BATTERY_LOW_PCT      = 30;
+    private static final int BATTERY_CRITICAL_PCT = 15;
+
+    private final Context ctx;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final PowerManager powerManager;
+
+    private Tier tier = Tier.FULL;
+    private long lastChangeMs;
+    private long coolSinceMs; // when the target first dropped below the current tier, 0 if it hasn't
+    private int thermalStatus;
+    private float headroom = Float.NaN; // last valid forecast; NaN until one arrives
+    private int batteryPct = 100;
+    private boolean charging = true;
+    private boolean started;
+
+    private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+    private final BroadcastReceiver powerReceiver = new BroadcastReceiver() {
+        @Override public void onReceive(Context context, Intent intent) {
+            readBattery(intent);
+            evaluate();
+        }
+    };
+
+    private final Runnable poll = new Runnable() {
+        @Override public void run() {
+            readHeadroom();
+            evaluate();
+            handler.postDelayed(this, POLL_INTERVAL_MS);
+        }
+    };
+
+    public PerformanceGovernor(Context ctx, Listener listener) {
+        this.ctx = ctx.getApplicationContext();
+        this.listener = listener;
+        this.powerManager = (PowerManager) ctx.getSystemService(Context.POWER_SERVICE);
+    }
+
+    /** Start listening. The initial tier is applied at once, without stepping. */
+    public void start() {
+        if (started) return;
+        started = true;
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+        filter.addAction(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED);
+        Intent sticky = ctx.registerReceiver(powerReceiver, filter);
+        if (sticky != null) readBattery(sticky);
+
+        if (powerManager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalStatus = powerManager.getCurrentThermalStatus();
+            thermalListener = status -> {
+                thermalStatus = status;
+                evaluate();
+            };
+            powerManager.addThermalStatusListener(ctx.getMainExecutor(), thermalListener);
+        }
+
+        readHeadroom();
+        tier = targetTier();
+        lastChangeMs = SystemClock.elapsedRealtime();
+        coolSinceMs = 0;
+        Log.d(TAG, "Initial tier " + tier.label + " (" + describeState() + ")");
+        handler.postDelayed(poll, POLL_INTERVAL_MS);
+    }
+
+    public void stop() {
+        if (!started) return;
+        started = false;
+        handler.removeCallbacks(poll);
+        try {
+            ctx.unregisterReceiver(powerReceiver);
+        } catch (IllegalArgumentException ignored) {}
+        if (thermalListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            powerManager.removeThermalStatusListener(thermalListener);
+            thermalListener = null;
+        }
+    }
+
+    public Tier getTier() { return tier; }
+
+    private void readBattery(Intent intent) {
+        if (!Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) return;
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) batteryPct = level * 100 / scale;
+        int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                || status == BatteryManager.BATTERY_STATUS_FULL;
+    }
+
+    /**
+     * Only called from start and the poll: the platform returns NaN when asked more often than
+     * about once a second, so a NaN keeps the previous value rather than clearing it.
+     */
+    private void readHeadroom() {
+        if (powerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return;
+        float h = powerManager.getThermalHeadroom((int) (POLL_INTERVAL_MS / 1000));
+        if (!Float.isNaN(h)) headroom = h;
+    }
+
+    private Tier targetTier() {
+        Tier target = Tier.FULL;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            if (thermalStatus >= PowerManager.THERMAL_STATUS_CRITICAL) target = atLeast(target, Tier.MINIMAL);
+            else if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) target = atLeast(target, Tier.REDUCED);
+            else if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) target = atLeast(target, Tier.BALANCED);
+        }
+        if (!Float.isNaN(headroom) && headroom >= HEADROOM_BACKOFF) target = atLeast(target, Tier.BALANCED);
+
+        if (!charging) {
+            if (batteryPct <= BATTERY_CRITICAL_PCT) target = atLeast(target, Tier.REDUCED);
+            else if (batteryPct <= BATTERY_LOW_PCT) target = atLeast(target, Tier.BALANCED);
+        }
+        if (powerManager != null && powerManager.isPowerSaveMode()) target = atLeast(target, Tier.BALANCED);
+
+        return target;
+    }
+
+    private static Tier atLeast(Tier current, Tier floor) {
+        return current.ordinal() >= floor.ordinal() ? current : floor;
+    }
+
+    private void evaluate() {
+        if (!started) return;
+        Tier target = targetTier();
+        long now = SystemClock.elapsedRealtime();
+        boolean down = target.ordinal() > tier.ordinal();
+        if (target.ordinal() < tier.ordinal()) {
+            if (coolSinceMs == 0) coolSinceMs = now;
+        } else {
+            coolSinceMs = 0; // any reading at or above the current tier restarts the cool-down
+        }
+        if (target == tier) return;
+
+        // Down once the last change has settled; up only after staying cool the whole dwell
+        if (down ? now - lastChangeMs < STEP_DOWN_DWELL_MS : now - coolSinceMs < STEP_UP_DWELL_MS) return;
+
+        tier = Tier.values()[tier.ordinal() + (down ? 1 : -1)];
+        lastChangeMs = now;
+        coolSinceMs = down ? 0 : now; // one step up per dwell
+        String reason = describeState();
+        Log.i(TAG, "Tier -> " + tier.label + " (" + reason + ")");
+        listener.onTierChanged(tier, reason);
+    }
+
+    private String describeState() {
+        return "thermal=" + thermalStatus + (Float.isNaN(headroom) ? "" : ", headroom=" + headroom)
+                + ", battery=" + batteryPct + "%"
+                + (charging ? " charging" : "")
+                + (powerManager != null && powerManager.isPowerSaveMode() ? ", power save" : "");
+    }
+}
@@ -3,15 +3,20 @@ package com.example.lanscreenstream;
 import android.app.Notification;
 import android.app.Service;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
+import android.hardware.HardwareBuffer;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Process;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -25,62 +30,111 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Future;
 
 public class StreamService extends Service implements MjpegHttpServer.FrameSource {
 
     private static final String TAG = "StreamService";
 
-    // Tunables
-    private static final int TARGET_MAX_WIDTH  = 720;   // try 540 or 480 if still slow
+    private static final int NOTIF_ID = 1;
+
+    // Tunables (frame interval, width and encoder count come from PerformanceGovernor.Tier)
     private static final int JPEG_QUALITY      = 60;    // try 50–60 for speed
-    private static final long FRAME_INTERVAL_MS= 33;    // ~30 fps
+    private static final int PLACEHOLDER_WIDTH = 480;
+    private static final boolean LOW_LATENCY_TRANSPORT = false; // no Nagle, one write per frame
+    private static final long EGRESS_BUDGET_BYTES_PER_SEC = 3L * 1024 * 1024; // all viewers together, 0 = unlimited
+    // RGB_565 halves capture memory traffic; HARDWARE (API 29+) needs USE_IMAGE_READER
+    private static final CaptureBufferPool.Format CAPTURE_FORMAT = CaptureBufferPool.Format.ARGB_8888;
+    private static final boolean USE_IMAGE_READER = false; // ImageReader instead of SurfaceTexture + PixelCopy
 
     private MediaProjection mediaProjection;
     private VirtualDisplay virtualDisplay;
 
     private SurfaceTexture surfaceTexture;
     private Surface surface;
+    private ImageReader imageReader;          // USE_IMAGE_READER only
+    private volatile boolean imageAvailable;  // a new image is queued in imageReader
 
     private HandlerThread captureThread;
     private Handler captureHandler;
 
-    private ExecutorService encodePool;
-    private final AtomicReference<byte[]> latestJpeg = new AtomicReference<>(null);
+    private volatile ExecutorService encodePool;
+    private volatile CapturePipeline<CaptureBufferPool.Buffer> pipeline; // created on the capture thread
 
-    private MjpegHttpServer server;
+    private volatile MjpegHttpServer server;
+    // Guards server start/stop: the init pool may still be binding the port when onDestroy runs
+    private final Object serverLock = new Object();
+    private boolean destroyed;
     private Timer testTimer;
 
-    // Double-buffered bitmaps (A/B)
-    private Bitmap bmpA, bmpB;
-    private volatile boolean useA = true;
-    private volatile boolean copying = false;
-    private int targetW, targetH;
+    // Startup work that doesn't depend on the projection runs here, off the main thread
+    private ExecutorService initPool;
+    private volatile Frame placeholderFrame;
+    private StreamStats stats;
+    private String streamUrl; // main thread; null until the LAN address is known
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    // tiny queue to hand off frames to encoder (keeps only latest)
-    private ArrayBlockingQueue<Bitmap> encodeQueue;
+    // Thermal/battery governor and the tier settings it currently asks for
+    private PerformanceGovernor governor;
+    private volatile long frameIntervalMs;
+    private volatile int encoderThreads;
 
-    // reuse one stream to cut allocations
-    private final ByteArrayOutputStream jpegOut = new ByteArrayOutputStream(256 * 1024);
+    // Capture buffers: one being filled, one waiting, one per encoder; never shared while in use
+    private static final int MAX_CAPTURE_BUFFERS = 4;
+    private final CaptureBufferPool bufferPool = new CaptureBufferPool(MAX_CAPTURE_BUFFERS, captureFormat());
+    private int targetW, targetH; // capture thread after setup
+    private int dpi;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        stats = new StreamStats(appVersionName());
+    }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "onStartCommand called");
+        stats.markStart();
 
         int resultCode = intent.getIntExtra("resultCode", 0);
         Intent data = intent.getParcelableExtra("data");
 
-        startHttpServer();
-
-        String ip = NetworkUtils.getLocalIpAddress(this);
-        String url = "http://" + ip + ":8080/";
-        Log.d(TAG, "HTTP server started at: " + url);
+        if (initPool == null) {
+            initPool = Executors.newFixedThreadPool(3, r -> new Thread(r, "stream-init"));
+        }
+        if (governor == null) {
+            governor = new PerformanceGovernor(this, (tier, reason) -> applyTier(tier));
+            governor.start();
+        }
+        PerformanceGovernor.Tier tier = governor.getTier();
+        frameIntervalMs = tier.frameIntervalMs;
+        encoderThreads = tier.encoderThreads;
+
+        initPool.execute(this::preparePlaceholder);
+        initPool.execute(this::startHttpServer);
+
+        // Tracked since app start, so normally known; otherwise scan off the main thread
+        String ip = NetworkUtils.peekCachedIpAddress();
+        if (ip != null) {
+            streamUrl = "http://" + ip + ":8080/";
+            Log.d(TAG, "HTTP server starting at: " + streamUrl);
+        } else {
+            initPool.execute(() -> {
+                String url = "http://" + NetworkUtils.getCachedIpAddress(this) + ":8080/";
+                Log.d(TAG, "HTTP server starting at: " + url);
+                mainHandler.post(() -> {
+                    streamUrl = url;
+                    PerformanceGovernor g = governor;
+                    NotificationHelper.updateForeground(this, NOTIF_ID, url, g != null ? g.getTier().label : null);
+                });
+            });
+        }
 
-        Notification notif = NotificationHelper.buildForeground(this, url);
-        startForeground(1, notif);
+        Notification notif = NotificationHelper.buildForeground(this, streamUrl, tier.label);
+        startForeground(NOTIF_ID, notif);
 
         setupProjection(resultCode, data);
 
@@ -104,15 +158,39 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
         DisplayMetrics metrics = getResources().getDisplayMetrics();
         int srcW = metrics.widthPixels;
         int srcH = metrics.heightPixels;
-        targetW = Math.min(TARGET_MAX_WIDTH, srcW);
+        targetW = bufferPool.alignWidth(Math.min(governor.getTier().maxWidth, srcW));
         targetH = Math.max(1, (int) ((long) targetW * srcH / Math.max(1, srcW)));
-        int dpi = metrics.densityDpi;
+        dpi = metrics.densityDpi;
 
         Log.d(TAG, "Display size: " + srcW + "x" + srcH + " -> " + targetW + "x" + targetH + " dpi=" + dpi);
 
-        surfaceTexture = new SurfaceTexture(0);
-        surfaceTexture.setDefaultBufferSize(targetW, targetH);
-        surface = new Surface(surfaceTexture);
+        // Buffers and encoder don't depend on the virtual display; set them up in parallel
+        Future<?> pipelineReady = initPool.submit(() -> {
+            bufferPool.resize(targetW, targetH);
+            bufferPool.setTarget(encoderThreads + 2);
+            bufferPool.prefill();
+
+            // Encoder threads: the pipeline keeps as many busy as the tier asks for
+            encodePool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "jpeg-encoder");
+                t.setPriority(Thread.NORM_PRIORITY + 1);
+                return t;
+            });
+        });
+
+        // High-priority capture thread
+        captureThread = new HandlerThread("capture-thread", Process.THREAD_PRIORITY_DISPLAY);
+        captureThread.start();
+        captureHandler = new Handler(captureThread.getLooper());
+
+        if (USE_IMAGE_READER) {
+            imageReader = newImageReader(targetW, targetH);
+            surface = imageReader.getSurface();
+        } else {
+            surfaceTexture = new SurfaceTexture(0);
+            surfaceTexture.setDefaultBufferSize(targetW, targetH);
+            surface = new Surface(surfaceTexture);
+        }
 
         virtualDisplay = mediaProjection.createVirtualDisplay(
                 "screen",
@@ -121,98 +199,234 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
                 surface,
                 null, null
         );
-        Log.d(TAG, "virtualDisplay created (SurfaceTexture consumer)");
+        Log.d(TAG, "virtualDisplay created (" + (USE_IMAGE_READER ? "ImageReader" : "SurfaceTexture")
+                + " consumer, " + bufferPool.getFormat() + ")");
+
+        // Start the capture pipeline at the tier's frame interval once buffers and encoder are in place
+        captureHandler.post(() -> {
+            try {
+                pipelineReady.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Capture pipeline setup failed", e.getCause());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            startPipeline();
+        });
+    }
 
-        // High-priority capture thread
-        captureThread = new HandlerThread("capture-thread", Process.THREAD_PRIORITY_DISPLAY);
-        captureThread.start();
-        captureHandler = new Handler(captureThread.getLooper());
+    private void startPipeline() {
+        if (!USE_IMAGE_READER && Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            Log.e(TAG, "PixelCopy requires API 26+. Your build is too old.");
+            return;
+        }
+        Log.d(TAG, "Starting " + (USE_IMAGE_READER ? "ImageReader" : "PixelCopy")
+                + " loop every " + frameIntervalMs + "ms");
+
+        CapturePipeline.CaptureSource<CaptureBufferPool.Buffer> source =
+                USE_IMAGE_READER ? new ImageReaderSource() : new PixelCopySource();
+        CapturePipeline<CaptureBufferPool.Buffer> p = new CapturePipeline<>(new HandlerClock(captureHandler),
+                source, bufferPool, new JpegEncoder(encodePool, JPEG_QUALITY));
+        p.setFrameIntervalMs(frameIntervalMs);
+        p.setEncoderSlots(encoderThreads);
+        p.setListener(frame -> {
+            Log.d(TAG, "JPEG frame updated (q=" + JPEG_QUALITY + ", " + frame.jpeg.length + " bytes)");
+            if (stats.markFirstFrame()) {
+                Log.i(TAG, "Time to first frame: " + stats.getTimeToFirstFrameMs()
+                        + " ms (v" + stats.getAppVersion() + ")");
+            }
+        });
+        pipeline = p;
+        p.start();
+    }
 
-        // Double-buffered bitmaps
-        bmpA = Bitmap.createBitmap(targetW, targetH, Bitmap.Config.ARGB_8888);
-        bmpB = Bitmap.createBitmap(targetW, targetH, Bitmap.Config.ARGB_8888);
+    /** The capture thread's Handler as pipeline clock; timestamps are wall-clock for latency tracing. */
+    private static final class HandlerClock implements CapturePipeline.Clock {
+        private final Handler handler;
 
-        // Encoder thread: single worker, latest-frame only
-        encodeQueue = new ArrayBlockingQueue<>(1);
-        encodePool = Executors.newSingleThreadExecutor(r -> {
-            Thread t = new Thread(r, "jpeg-encoder");
-            t.setPriority(Thread.NORM_PRIORITY + 1);
-            return t;
-        });
-        encodePool.execute(this::encodeLoop);
+        HandlerClock(Handler handler) { this.handler = handler; }
 
-        // Start PixelCopy loop aiming ~30fps
-        startPixelCopyLoop(FRAME_INTERVAL_MS);
+        @Override public long nowMs() { return System.currentTimeMillis(); }
+
+        @Override public void postDelayed(Runnable task, long delayMs) { handler.postDelayed(task, delayMs); }
     }
 
-    private void startPixelCopyLoop(long intervalMs) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
-            Log.e(TAG, "PixelCopy requires API 26+. Your build is too old.");
-            return;
+    /** Copies the virtual display's surface into a capture bitmap, calling back on the capture thread. */
+    private final class PixelCopySource implements CapturePipeline.CaptureSource<CaptureBufferPool.Buffer> {
+        @Override public boolean isReady() {
+            return surface != null && surface.isValid();
         }
-        Log.d(TAG, "Starting PixelCopy loop every " + intervalMs + "ms");
 
-        captureHandler.post(new Runnable() {
-            @Override public void run() {
-                try {
-                    if (surface == null || !surface.isValid()) {
-                        captureHandler.postDelayed(this, intervalMs);
-                        return;
-                    }
-                    if (!copying) {
-                        copying = true;
-                        final Bitmap target = useA ? bmpA : bmpB;
-                        useA = !useA;
-                        PixelCopy.request(surface, target, result -> {
-                            try {
-                                if (result == PixelCopy.SUCCESS) {
-                                    // Offer latest bitmap to encoder, dropping older one if queue full
-                                    encodeQueue.poll(); // drop stale
-                                    encodeQueue.offer(target);
-                                } else {
-                                    Log.w(TAG, "PixelCopy failed, code=" + result);
-                                }
-                            } finally {
-                                copying = false;
-                            }
-                        }, captureHandler);
-                    }
-                } catch (Throwable t) {
-                    copying = false;
-                    Log.e(TAG, "PixelCopy.request threw", t);
-                } finally {
-                    captureHandler.postDelayed(this, intervalMs);
-                }
+        @Override public void capture(CaptureBufferPool.Buffer dst, Callback callback) {
+            try {
+                PixelCopy.request(surface, dst.getBitmap(), result -> {
+                    if (result != PixelCopy.SUCCESS) Log.w(TAG, "PixelCopy failed, code=" + result);
+                    callback.onCaptured(result == PixelCopy.SUCCESS);
+                }, captureHandler);
+            } catch (RuntimeException t) {
+                Log.e(TAG, "PixelCopy.request threw", t);
+                throw t;
             }
-        });
+        }
     }
 
-    private void encodeLoop() {
-        try {
-            while (!Thread.currentThread().isInterrupted()) {
-                Bitmap frame = encodeQueue.take(); // always latest due to poll/offer
+    /**
+     * Takes the newest queued ImageReader image into a capture buffer. Only runs when the
+     * display has produced a new image, so a static screen costs no copies or encodes.
+     */
+    private final class ImageReaderSource implements CapturePipeline.CaptureSource<CaptureBufferPool.Buffer> {
+        @Override public boolean isReady() {
+            return imageReader != null && imageAvailable;
+        }
+
+        @Override public void capture(CaptureBufferPool.Buffer dst, Callback callback) {
+            imageAvailable = false;
+            Image image = imageReader.acquireLatestImage();
+            callback.onCaptured(image != null && bufferPool.fill(dst, image));
+        }
+    }
+
+    /** Compresses capture bitmaps to JPEG on the encoder threads. */
+    private static final class JpegEncoder implements CapturePipeline.Encoder<CaptureBufferPool.Buffer> {
+        private final ExecutorService pool;
+        private final int quality;
+        // each encoder thread reuses its own stream to cut allocations
+        private final ThreadLocal<ByteArrayOutputStream> out =
+                ThreadLocal.withInitial(() -> new ByteArrayOutputStream(256 * 1024));
+
+        JpegEncoder(ExecutorService pool, int quality) {
+            this.pool = pool;
+            this.quality = quality;
+        }
+
+        @Override public void encode(CaptureBufferPool.Buffer frame, Callback callback) {
+            pool.execute(() -> {
+                byte[] jpeg = null;
                 try {
+                    ByteArrayOutputStream jpegOut = out.get();
                     jpegOut.reset();
-                    frame.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, jpegOut);
-                    latestJpeg.set(jpegOut.toByteArray());
-                    Log.d(TAG, "JPEG frame updated (q=" + JPEG_QUALITY + ", " + latestJpeg.get().length + " bytes)");
+                    frame.getBitmap().compress(Bitmap.CompressFormat.JPEG, quality, jpegOut);
+                    jpeg = jpegOut.toByteArray();
                 } catch (Throwable t) {
                     Log.e(TAG, "JPEG encode error", t);
                 }
-            }
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
+                callback.onEncoded(jpeg);
+            });
+        }
+    }
+
+    /** Called by the governor on the main thread. */
+    private void applyTier(PerformanceGovernor.Tier tier) {
+        frameIntervalMs = tier.frameIntervalMs;
+        encoderThreads = tier.encoderThreads;
+        if (captureHandler != null) {
+            captureHandler.post(() -> {
+                CapturePipeline<CaptureBufferPool.Buffer> p = pipeline;
+                if (p == null) return; // pipeline setup failed
+                applyResolution(tier.maxWidth);
+                bufferPool.setTarget(tier.encoderThreads + 2);
+                p.setFrameIntervalMs(tier.frameIntervalMs);
+                p.setEncoderSlots(tier.encoderThreads);
+            });
+        }
+        // Send at the capture rate, so no captured frame is encoded just to be skipped
+        synchronized (serverLock) {
+            if (server != null) server.setFps(fpsFor(tier.frameIntervalMs));
+        }
+        NotificationHelper.updateForeground(this, NOTIF_ID, streamUrl, tier.label);
+    }
+
+    /** Capture thread: resize the virtual display and start a fresh set of capture buffers. */
+    private void applyResolution(int maxWidth) {
+        if (virtualDisplay == null || (surfaceTexture == null && imageReader == null)) return;
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int w = bufferPool.alignWidth(Math.min(maxWidth, metrics.widthPixels));
+        int h = Math.max(1, (int) ((long) w * metrics.heightPixels / Math.max(1, metrics.widthPixels)));
+        if (w == targetW && h == targetH) return;
+
+        Log.d(TAG, "Capture size " + targetW + "x" + targetH + " -> " + w + "x" + h);
+        targetW = w;
+        targetH = h;
+        if (imageReader != null) {
+            // ImageReader size is fixed; swap in a new one. Wrapped HardwareBuffers keep their own reference.
+            ImageReader old = imageReader;
+            imageAvailable = false;
+            imageReader = newImageReader(w, h);
+            surface = imageReader.getSurface();
+            virtualDisplay.setSurface(surface);
+            old.close();
+        } else {
+            surfaceTexture.setDefaultBufferSize(w, h);
+        }
+        virtualDisplay.resize(w, h, dpi);
+        // Buffers still in flight are recycled by the pool as they come back
+        bufferPool.resize(w, h);
+    }
+
+    /** Capture thread: reader for the virtual display at the pool's format; flags new images. */
+    private ImageReader newImageReader(int w, int h) {
+        CaptureBufferPool.Format format = bufferPool.getFormat();
+        int maxImages = MAX_CAPTURE_BUFFERS + 2; // hardware buffers hold their image until encoded
+        ImageReader reader = format == CaptureBufferPool.Format.HARDWARE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                ? ImageReader.newInstance(w, h, format.pixelFormat, maxImages,
+                        HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE | HardwareBuffer.USAGE_GPU_COLOR_OUTPUT)
+                : ImageReader.newInstance(w, h, format.pixelFormat, maxImages);
+        reader.setOnImageAvailableListener(r -> imageAvailable = true, captureHandler);
+        return reader;
+    }
+
+    private static int fpsFor(long frameIntervalMs) {
+        return (int) Math.max(1, Math.round(1000.0 / Math.max(1, frameIntervalMs)));
+    }
+
+    /** PixelCopy can't write into hardware bitmaps, and wrapping needs API 29. */
+    private static CaptureBufferPool.Format captureFormat() {
+        if (CAPTURE_FORMAT == CaptureBufferPool.Format.HARDWARE
+                && (!USE_IMAGE_READER || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)) {
+            return CaptureBufferPool.Format.ARGB_8888;
         }
+        return CAPTURE_FORMAT;
     }
 
     private void startHttpServer() {
-        server = new MjpegHttpServer(8080, 10);
-        server.setFrameSource(this);
+        synchronized (serverLock) {
+            if (destroyed || server != null) return;
+            MjpegHttpServer s = new MjpegHttpServer(8080, fpsFor(frameIntervalMs));
+            s.setFrameSource(this);
+            s.setStats(stats);
+            s.setLowLatency(LOW_LATENCY_TRANSPORT);
+            s.setEgressBudget(EGRESS_BUDGET_BYTES_PER_SEC);
+            try {
+                s.start();
+                server = s;
+                Log.d(TAG, "MjpegHttpServer started on port 8080");
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to start MjpegHttpServer", e);
+            }
+        }
+    }
+
+    private void preparePlaceholder() {
+        if (placeholderFrame != null) return;
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        int w = PLACEHOLDER_WIDTH;
+        int h = Math.max(1, (int) ((long) w * metrics.heightPixels / Math.max(1, metrics.widthPixels)));
         try {
-            server.start();
-            Log.d(TAG, "MjpegHttpServer started on port 8080");
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to start MjpegHttpServer", e);
+            byte[] jpeg = ImageUtil.placeholderJpeg(w, h, "Starting stream\u2026", JPEG_QUALITY);
+            long now = System.currentTimeMillis();
+            placeholderFrame = new Frame(jpeg, 0, now, now);
+        } catch (Throwable t) {
+            Log.w(TAG, "Placeholder frame failed", t);
+        }
+    }
+
+    private String appVersionName() {
+        try {
+            return getPackageManager().getPackageInfo(getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
         }
     }
 
@@ -224,8 +438,9 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
         testTimer.scheduleAtFixedRate(new TimerTask() {
             int safetyCounter = 0;
             @Override public void run() {
-                byte[] cur = latestJpeg.get();
-                if (cur != null && cur.length > 0) {
+                CapturePipeline<CaptureBufferPool.Buffer> p = pipeline;
+                Frame cur = p != null ? p.getLatestFrame() : null;
+                if (cur != null && cur.jpeg.length > 0) {
                     if (++safetyCounter >= 6) {
                         Log.d(TAG, "Real frames detected, stopping test frames");
                         testTimer.cancel();
@@ -245,9 +460,23 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
     public void onDestroy() {
         Log.d(TAG, "onDestroy called");
         super.onDestroy();
-        if (server != null) {
-            server.stop();
-            Log.d(TAG, "HTTP server stopped");
+        mainHandler.removeCallbacksAndMessages(null);
+        if (governor != null) {
+            governor.stop();
+            governor = null;
+        }
+        if (initPool != null) {
+            initPool.shutdownNow();
+            initPool = null;
+        }
+        // Waits for a start still running on the init pool, so the port is never left bound
+        synchronized (serverLock) {
+            destroyed = true;
+            if (server != null) {
+                server.stop();
+                server = null;
+                Log.d(TAG, "HTTP server stopped");
+            }
         }
         if (virtualDisplay != null) {
             virtualDisplay.release();
@@ -263,10 +492,19 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
             surfaceTexture = null;
             Log.d(TAG, "surfaceTexture released");
         }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+            Log.d(TAG, "imageReader closed");
+        }
         if (mediaProjection != null) {
             mediaProjection.stop();
             Log.d(TAG, "mediaProjection stopped");
         }
+        if (pipeline != null) {
+            pipeline.stop();
+            pipeline = null;
+        }
         if (captureThread != null) {
             captureThread.quitSafely();
             Log.d(TAG, "captureThread quit");
@@ -275,8 +513,7 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
             encodePool.shutdownNow();
             Log.d(TAG, "encodePool shutdown");
         }
-        if (bmpA != null) { bmpA.recycle(); bmpA = null; }
-        if (bmpB != null) { bmpB.recycle(); bmpB = null; }
+        bufferPool.clear();
         if (testTimer != null) {
             testTimer.cancel();
             testTimer = null;
@@ -285,5 +522,9 @@ public class StreamService extends Service implements MjpegHttpServer.FrameSourc
     }
 
     @Override
-    public byte[] getLatestJpeg() { return latestJpeg.get(); }
+    public Frame getLatestFrame() {
+        CapturePipeline<CaptureBufferPool.Buffer> p = pipeline;
+        Frame frame = p != null ? p.getLatestFrame() : null;
+        return frame != null ? frame : placeholderFrame;
+    }
 }
@@ -0,0 +1,45 @@
+package com.example.lanscreenstream;
+
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Startup timings for one streaming session, shared between the service and the HTTP server. */
+public class StreamStats {
+
+    private final String appVersion;
+
+    private volatile long startNs;
+    private final AtomicLong firstFrameNs = new AtomicLong(); // set once; encoders race for it
+
+    public StreamStats(String appVersion) {
+        this.appVersion = appVersion != null ? appVersion : "unknown";
+    }
+
+    /** Start of a session: called as soon as the service receives its start command. */
+    public void markStart() {
+        startNs = SystemClock.elapsedRealtimeNanos();
+        firstFrameNs.set(0);
+    }
+
+    /** Returns true only for the first real (non-placeholder) frame after {@link #markStart()}. */
+    public boolean markFirstFrame() {
+        if (startNs == 0) return false;
+        return firstFrameNs.compareAndSet(0, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /** Milliseconds from start command to first encoded frame, or -1 if none yet. */
+    public long getTimeToFirstFrameMs() {
+        long first = firstFrameNs.get();
+        if (first == 0) return -1;
+        return (first - startNs) / 1_000_000L;
+    }
+
+    public String getAppVersion() { return appVersion; }
+
+    public String toJson() {
+        return "{\"appVersion\":\"" + appVersion + "\""
+                + ",\"timeToFirstFrameMs\":" + getTimeToFirstFrameMs()
+                + "}";
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.lanscreenstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Drives {@link EgressScheduler} with a fake clock: each viewer asks for a frame at its frame
+ * interval and, when refused, retries every 10 ms like the stream loops do.
+ */
+public class EgressSchedulerTest {
+
+    private static final int FRAME_BYTES = 50_000;
+    private static final long FRAME_INTERVAL_MS = 100;  // viewers want 10 fps = 500 KB/s
+    private static final long DURATION_MS = 10_000;
+    private static final long RETRY_MS = 10;
+
+    private static final class FakeTicker implements EgressScheduler.Ticker {
+        long nowNs;
+
+        @Override public long nanoTime() { return nowNs; }
+    }
+
+    private static final class Viewer {
+        final EgressScheduler.Client client;
+        final int frameBytes;
+        int frames;
+        long nextMs;
+        long lastSentMs;
+        long maxGapMs;
+
+        Viewer(EgressScheduler.Client client, int frameBytes) {
+            this.client = client;
+            this.frameBytes = frameBytes;
+        }
+
+        double fps() { return frames * 1000.0 / DURATION_MS; }
+    }
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private void run(EgressScheduler egress, Viewer... viewers) {
+        for (long now = 0; now < DURATION_MS; now += RETRY_MS) {
+            ticker.nowNs = now * 1_000_000L;
+            for (Viewer v : viewers) {
+                if (now < v.nextMs) continue;
+                if (egress.trySend(v.client, v.frameBytes, FRAME_INTERVAL_MS)) {
+                    v.maxGapMs = Math.max(v.maxGapMs, now - v.lastSentMs);
+                    v.lastSentMs = now;
+                    v.frames++;
+                    v.nextMs = now + FRAME_INTERVAL_MS;
+                } else {
+                    v.nextMs = now + RETRY_MS;
+                }
+            }
+        }
+    }
+
+    private Viewer viewer(EgressScheduler egress, int tier) {
+        return new Viewer(egress.register(tier), FRAME_BYTES);
+    }
+
+    @Test
+    public void unlimitedBudgetNeverThrottles() {
+        EgressScheduler egress = new EgressScheduler(0, ticker);
+        Viewer a = viewer(egress, EgressScheduler.TIER_NORMAL);
+        Viewer b = viewer(egress, EgressScheduler.TIER_NORMAL);
+        run(egress, a, b);
+        assertEquals(100, a.frames);
+        assertEquals(100, b.frames);
+    }
+
+    @Test
+    public void priorityTierIsServedFirst() {
+        // 800 KB/s: the priority viewer's full 500 KB/s fits, the rest is left to the others
+        EgressScheduler egress = new EgressScheduler(800_000, ticker);
+        Viewer presenter = viewer(egress, EgressScheduler.TIER_PRIORITY);
+        Viewer a = viewer(egress, EgressScheduler.TIER_NORMAL);
+        Viewer b = viewer(egress, EgressScheduler.TIER_NORMAL);
+        run(egress, presenter, a, b);
+
+        assertTrue("priority fps " + presenter.fps(), presenter.fps() >= 9.5);
+        assertTrue("normal fps " + a.fps(), a.fps() < 5);
+        assertTrue("normal fps " + b.fps(), b.fps() < 5);
+    }
+
+    @Test
+    public void viewersInOneTierShareEqually() {
+        EgressScheduler egress = new EgressScheduler(600_000, ticker);
+        Viewer a = viewer(egress, EgressScheduler.TIER_NORMAL);
+        Viewer b = viewer(egress, EgressScheduler.TIER_NORMAL);
+        Viewer c = viewer(egress, EgressScheduler.TIER_NORMAL);
+        run(egress, a, b, c);
+
+        assertEquals(a.client.shareBps, b.client.shareBps, 1);
+        assertEquals(a.client.shareBps, c.client.shareBps, 1);
+        assertEquals(a.fps(), b.fps(), 0.3);
+        assertEquals(a.fps(), c.fps(), 0.3);
+        // 200 KB/s each at 50 KB per frame
+        assertEquals(4.0, a.fps(), 0.5);
+    }
+
+    @Test
+    public void smallDemandIsMetAndTheRestGoesToOthers() {
+        // Water-filling: the 100 KB/s viewer is fully served, the other gets what is left
+        EgressScheduler egress = new EgressScheduler(400_000, ticker);
+        Viewer small = new Viewer(egress.register(EgressScheduler.TIER_NORMAL), 10_000);
+        Viewer big = viewer(egress, EgressScheduler.TIER_NORMAL);
+        run(egress, small, big);
+
+        assertTrue("small fps " + small.fps(), small.fps() >= 9.5);
+        assertEquals(6.0, big.fps(), 0.5);
+    }
+
+    @Test
+    public void tightBudgetLowersFrameRateWithoutStalling() {
+        // 300 KB/s for a priority viewer and three others that each want 500 KB/s
+        EgressScheduler egress = new EgressScheduler(300_000, ticker);
+        Viewer presenter = viewer(egress, EgressScheduler.TIER_PRIORITY);
+        Viewer[] others = {
+                viewer(egress, EgressScheduler.TIER_NORMAL),
+                viewer(egress, EgressScheduler.TIER_NORMAL),
+                viewer(egress, EgressScheduler.TIER_NORMAL),
+        };
+        run(egress, presenter, others[0], others[1], others[2]);
+
+        assertTrue("priority fps " + presenter.fps(), presenter.fps() > others[0].fps());
+        for (Viewer v : others) {
+            assertTrue("normal fps " + v.fps(), v.fps() >= 0.8);
+            assertTrue("longest gap " + v.maxGapMs + " ms", v.maxGapMs <= 1_500);
+        }
+    }
+}
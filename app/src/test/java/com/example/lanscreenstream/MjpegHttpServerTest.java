@@ -0,0 +1,207 @@
+package com.example.lanscreenstream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads /stream.mjpg from a real server over loopback, in both the chunked and the
+ * low-latency transport, and checks the multipart framing byte for byte.
+ */
+public class MjpegHttpServerTest {
+
+    private static final byte[] JPEG_A = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+    private static final byte[] JPEG_B = {(byte) 0xFF, (byte) 0xD8, 4, 5, 6, 7, (byte) 0xFF, (byte) 0xD9};
+
+    /** One multipart part as read off the wire. */
+    private static final class Part {
+        final Map<String, String> headers;
+        final byte[] body;
+        final long receivedMs;
+
+        Part(Map<String, String> headers, byte[] body, long receivedMs) {
+            this.headers = headers;
+            this.body = body;
+            this.receivedMs = receivedMs;
+        }
+
+        long seq() { return Long.parseLong(headers.get("x-frame-seq")); }
+    }
+
+    /** Parses "--frame" CRLF, headers, blank line, Content-Length bytes, CRLF, repeated. */
+    private static final class PartReader {
+        private final DataInputStream in;
+
+        PartReader(InputStream in) {
+            this.in = new DataInputStream(in);
+        }
+
+        Part next() throws IOException {
+            assertEquals("--frame", readLine());
+            Map<String, String> headers = new HashMap<>();
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                assertTrue(line, colon > 0);
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            byte[] body = new byte[Integer.parseInt(headers.get("content-length"))];
+            in.readFully(body);
+            long receivedMs = System.currentTimeMillis();
+            assertEquals("", readLine()); // CRLF closing the part
+            return new Part(headers, body, receivedMs);
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) throw new IOException("stream ended");
+                line.write(b);
+            }
+            assertEquals('\n', in.read());
+            return new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final AtomicReference<Frame> frame = new AtomicReference<>();
+    private MjpegHttpServer server;
+    private int port;
+
+    private void startServer(boolean lowLatency) throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        server = new MjpegHttpServer(port, 10);
+        server.setLowLatency(lowLatency);
+        server.setFrameSource(frame::get);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        if (server != null) server.stop();
+    }
+
+    private HttpURLConnection openStream() throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/stream.mjpg").openConnection();
+        conn.setReadTimeout(5_000);
+        assertEquals(200, conn.getResponseCode());
+        assertEquals("multipart/x-mixed-replace; boundary=frame", conn.getContentType());
+        assertEquals("no-cache, no-store, must-revalidate", conn.getHeaderField("Cache-Control"));
+        return conn;
+    }
+
+    private static void awaitClientCount(EgressScheduler egress, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (egress.clientCount() != count && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(count, egress.clientCount());
+    }
+
+    private void checkPartHeaders(boolean lowLatency) throws Exception {
+        frame.set(new Frame(JPEG_A, 5, 1_000, 1_010));
+        startServer(lowLatency);
+        long before = System.currentTimeMillis();
+        HttpURLConnection conn = openStream();
+        try {
+            Part p = new PartReader(conn.getInputStream()).next();
+            assertEquals("image/jpeg", p.headers.get("content-type"));
+            assertEquals(String.valueOf(JPEG_A.length), p.headers.get("content-length"));
+            assertEquals(5, p.seq());
+            assertEquals("1000", p.headers.get("x-capture-time"));
+            assertEquals("1010", p.headers.get("x-encode-time"));
+            long sendTime = Long.parseLong(p.headers.get("x-send-time"));
+            assertTrue(sendTime >= before && sendTime <= p.receivedMs);
+            assertArrayEquals(JPEG_A, p.body);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private void checkRepeatSuppression(boolean lowLatency) throws Exception {
+        frame.set(new Frame(JPEG_A, 1, 1_000, 1_010));
+        startServer(lowLatency);
+        HttpURLConnection conn = openStream();
+        try {
+            PartReader reader = new PartReader(conn.getInputStream());
+            Part first = reader.next();
+            assertEquals(1, first.seq());
+
+            // At 10 fps frame 1 would go out ~4 more times before this if it were repeated
+            Thread.sleep(400);
+            frame.set(new Frame(JPEG_B, 2, 2_000, 2_010));
+            Part second = reader.next();
+            assertEquals(2, second.seq());
+            assertArrayEquals(JPEG_B, second.body);
+
+            // Unchanged frame: only the ~1 s keep-alive repeat
+            Part third = reader.next();
+            assertEquals(2, third.seq());
+            assertTrue("repeat after " + (third.receivedMs - second.receivedMs) + " ms",
+                    third.receivedMs - second.receivedMs >= 800);
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    private void checkUnregisterOnDisconnect(boolean lowLatency) throws Exception {
+        // A new frame every call, so the server keeps writing and notices the close
+        AtomicReference<Long> seq = new AtomicReference<>(0L);
+        startServer(lowLatency);
+        server.setFrameSource(() -> new Frame(JPEG_A, seq.accumulateAndGet(1L, Long::sum), 1, 2));
+        EgressScheduler egress = server.getEgress();
+
+        HttpURLConnection conn = openStream();
+        new PartReader(conn.getInputStream()).next();
+        assertEquals(1, egress.clientCount());
+
+        conn.getInputStream().close();
+        conn.disconnect();
+        awaitClientCount(egress, 0);
+    }
+
+    @Test
+    public void chunkedPartsCarryTracingHeaders() throws Exception {
+        checkPartHeaders(false);
+    }
+
+    @Test
+    public void lowLatencyPartsCarryTracingHeaders() throws Exception {
+        checkPartHeaders(true);
+    }
+
+    @Test
+    public void chunkedStreamSkipsUnchangedFrames() throws Exception {
+        checkRepeatSuppression(false);
+    }
+
+    @Test
+    public void lowLatencyStreamSkipsUnchangedFrames() throws Exception {
+        checkRepeatSuppression(true);
+    }
+
+    @Test
+    public void chunkedStreamUnregistersOnDisconnect() throws Exception {
+        checkUnregisterOnDisconnect(false);
+    }
+
+    @Test
+    public void lowLatencyStreamUnregistersOnDisconnect() throws Exception {
+        checkUnregisterOnDisconnect(true);
+    }
+}
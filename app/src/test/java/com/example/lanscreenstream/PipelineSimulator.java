@@ -0,0 +1,239 @@
+package com.example.lanscreenstream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Runs {@link CapturePipeline} on the JVM against a virtual clock, with capture and encode
+ * latencies drawn from configurable distributions. Runs are deterministic for a given seed,
+ * so scheduling changes can be checked for throughput and latency regressions off-device.
+ *
+ * A simulated viewer samples the latest frame every {@link Config#viewerIntervalMs} to
+ * measure frame age (how old the picture on screen is) the way a stream client sees it.
+ * The simulated buffers also check that the pipeline never hands out a buffer that is still
+ * being captured into, waiting to be encoded or encoding.
+ */
+public class PipelineSimulator {
+
+    /** Latency of one operation in ms. */
+    public interface Distribution {
+        long sampleMs(Random rnd);
+
+        static Distribution fixed(long ms) {
+            return rnd -> ms;
+        }
+
+        static Distribution uniform(long minMs, long maxMs) {
+            return rnd -> minMs + (long) (rnd.nextDouble() * (maxMs - minMs + 1));
+        }
+
+        static Distribution normal(double meanMs, double stdDevMs) {
+            return rnd -> Math.max(0, Math.round(meanMs + rnd.nextGaussian() * stdDevMs));
+        }
+
+        /** {@code base}, but with probability {@code p} an extra {@code spikeMs} (GC, thermal, ...). */
+        static Distribution withSpikes(Distribution base, double p, long spikeMs) {
+            return rnd -> base.sampleMs(rnd) + (rnd.nextDouble() < p ? spikeMs : 0);
+        }
+    }
+
+    public static final class Config {
+        public long durationMs = 10_000;
+        public long frameIntervalMs = 33;
+        public int encoderSlots = 1;
+        public int buffers = 3;
+        public Distribution captureLatency = Distribution.uniform(4, 12);
+        public Distribution encodeLatency = Distribution.normal(25, 5);
+        public double captureFailureRate = 0;
+        public int jpegBytes = 60 * 1024;
+        public long viewerIntervalMs = 100; // a 10 fps stream client
+        public long seed = 1;
+    }
+
+    public static final class Report {
+        public final long durationMs;
+        public final CapturePipeline.Stats stats;
+        public final double deliveredFps;
+        public final double meanEncodeLatencyMs; // capture start -> frame published
+        public final double meanFrameAgeMs;      // as seen by the viewer
+        public final long p50FrameAgeMs;
+        public final long p95FrameAgeMs;
+        public final long maxFrameAgeMs;
+        public final int bufferMisuse;           // buffer used by two owners at once; must be 0
+
+        Report(long durationMs, CapturePipeline.Stats stats, double meanEncodeLatencyMs,
+               List<Long> ages, int bufferMisuse) {
+            this.durationMs = durationMs;
+            this.bufferMisuse = bufferMisuse;
+            this.stats = stats;
+            this.deliveredFps = stats.published * 1000.0 / Math.max(1, durationMs);
+            this.meanEncodeLatencyMs = meanEncodeLatencyMs;
+            Collections.sort(ages);
+            long sum = 0;
+            for (long a : ages) sum += a;
+            this.meanFrameAgeMs = ages.isEmpty() ? 0 : (double) sum / ages.size();
+            this.p50FrameAgeMs = percentile(ages, 0.50);
+            this.p95FrameAgeMs = percentile(ages, 0.95);
+            this.maxFrameAgeMs = ages.isEmpty() ? 0 : ages.get(ages.size() - 1);
+        }
+
+        private static long percentile(List<Long> sorted, double q) {
+            if (sorted.isEmpty()) return 0;
+            int i = (int) Math.ceil(q * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, i)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "delivered %.1f fps (%d frames in %d ms), captured %d, skipped busy %d, "
+                            + "dropped stale %d, dropped late %d, failures %d, "
+                            + "capture->publish %.1f ms, frame age mean %.1f / p50 %d / p95 %d / max %d ms, "
+                            + "buffer misuse %d",
+                    deliveredFps, stats.published, durationMs, stats.captured, stats.skippedBusy,
+                    stats.droppedStale, stats.droppedLate, stats.failures,
+                    meanEncodeLatencyMs, meanFrameAgeMs, p50FrameAgeMs, p95FrameAgeMs, maxFrameAgeMs,
+                    bufferMisuse);
+        }
+    }
+
+    public static Report run(Config config) {
+        Random rnd = new Random(config.seed);
+        VirtualClock clock = new VirtualClock();
+        SimBuffers buffers = new SimBuffers(config.buffers);
+
+        CapturePipeline.CaptureSource<Object> source = new CapturePipeline.CaptureSource<Object>() {
+            @Override public boolean isReady() { return true; }
+
+            @Override public void capture(Object buffer, Callback callback) {
+                buffers.begin(buffer);
+                boolean ok = rnd.nextDouble() >= config.captureFailureRate;
+                clock.postDelayed(() -> {
+                    buffers.end(buffer);
+                    callback.onCaptured(ok);
+                }, config.captureLatency.sampleMs(rnd));
+            }
+        };
+        CapturePipeline.Encoder<Object> encoder = (buffer, callback) -> {
+            buffers.begin(buffer);
+            clock.postDelayed(() -> {
+                buffers.end(buffer);
+                callback.onEncoded(new byte[config.jpegBytes]);
+            }, config.encodeLatency.sampleMs(rnd));
+        };
+
+        CapturePipeline<Object> pipeline = new CapturePipeline<>(clock, source, buffers, encoder);
+        pipeline.setFrameIntervalMs(config.frameIntervalMs);
+        pipeline.setEncoderSlots(config.encoderSlots);
+
+        long[] latency = new long[2]; // sum, count
+        pipeline.setListener(frame -> {
+            latency[0] += frame.encodeTimeMs - frame.captureTimeMs;
+            latency[1]++;
+        });
+
+        List<Long> ages = new ArrayList<>();
+        clock.postDelayed(new Runnable() {
+            @Override public void run() {
+                Frame f = pipeline.getLatestFrame();
+                if (f != null) ages.add(clock.nowMs() - f.captureTimeMs);
+                clock.postDelayed(this, config.viewerIntervalMs);
+            }
+        }, config.viewerIntervalMs);
+
+        pipeline.start();
+        clock.runUntil(config.durationMs);
+        pipeline.stop();
+
+        double meanLatency = latency[1] == 0 ? 0 : (double) latency[0] / latency[1];
+        return new Report(config.durationMs, pipeline.getStats(), meanLatency, ages, buffers.misuse);
+    }
+
+    /** Prints a report for the default config, e.g. to compare before/after a scheduling change. */
+    public static void main(String[] args) {
+        Config config = new Config();
+        if (args.length > 0) config.encoderSlots = Integer.parseInt(args[0]);
+        if (args.length > 1) config.frameIntervalMs = Long.parseLong(args[1]);
+        System.out.println(run(config));
+    }
+
+    /** Single-threaded event loop; time only moves when the next event runs. */
+    static final class VirtualClock implements CapturePipeline.Clock {
+        private static final class Event {
+            final long timeMs;
+            final long order;
+            final Runnable task;
+
+            Event(long timeMs, long order, Runnable task) {
+                this.timeMs = timeMs;
+                this.order = order;
+                this.task = task;
+            }
+        }
+
+        private final PriorityQueue<Event> events = new PriorityQueue<>((a, b) -> a.timeMs != b.timeMs
+                ? Long.compare(a.timeMs, b.timeMs)
+                : Long.compare(a.order, b.order));
+        private long nowMs;
+        private long order;
+
+        @Override public long nowMs() { return nowMs; }
+
+        @Override public void postDelayed(Runnable task, long delayMs) {
+            events.add(new Event(nowMs + Math.max(0, delayMs), order++, task));
+        }
+
+        void runUntil(long endMs) {
+            while (!events.isEmpty() && events.peek().timeMs <= endMs) {
+                Event e = events.poll();
+                nowMs = e.timeMs;
+                e.task.run();
+            }
+            nowMs = endMs;
+        }
+    }
+
+    /**
+     * Fixed number of opaque buffers that count misuse: releasing a buffer that isn't held,
+     * or starting a capture/encode on (or releasing) a buffer another one is still using.
+     */
+    private static final class SimBuffers implements CapturePipeline.Buffers<Object> {
+        private final ArrayDeque<Object> free = new ArrayDeque<>();
+        private final IdentityHashMap<Object, Boolean> held = new IdentityHashMap<>();
+        private final IdentityHashMap<Object, Boolean> busy = new IdentityHashMap<>();
+        int misuse;
+
+        SimBuffers(int count) {
+            for (int i = 0; i < count; i++) free.add(new Object());
+        }
+
+        @Override public Object acquire() {
+            Object b = free.poll();
+            if (b != null && held.put(b, Boolean.TRUE) != null) misuse++;
+            return b;
+        }
+
+        @Override public void release(Object buffer) {
+            if (held.remove(buffer) == null || busy.containsKey(buffer)) {
+                misuse++;
+                return; // keep a broken buffer out of circulation
+            }
+            free.add(buffer);
+        }
+
+        /** A capture or encode starts using {@code buffer}. */
+        void begin(Object buffer) {
+            if (!held.containsKey(buffer) || busy.put(buffer, Boolean.TRUE) != null) misuse++;
+        }
+
+        void end(Object buffer) {
+            busy.remove(buffer);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.lanscreenstream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.lanscreenstream.PipelineSimulator.Config;
+import com.example.lanscreenstream.PipelineSimulator.Distribution;
+import com.example.lanscreenstream.PipelineSimulator.Report;
+
+import org.junit.Test;
+
+/**
+ * Throughput, latency and buffer-safety checks for {@link CapturePipeline}, run in virtual
+ * time. Runs are deterministic, so a scheduling change that moves these numbers shows up here.
+ */
+public class PipelineSimulatorTest {
+
+    private static Config fixedLatencies(long captureMs, long encodeMs) {
+        Config c = new Config();
+        c.captureLatency = Distribution.fixed(captureMs);
+        c.encodeLatency = Distribution.fixed(encodeMs);
+        return c;
+    }
+
+    private static Config spikyEncoder(int slots) {
+        Config c = new Config();
+        c.encoderSlots = slots;
+        c.encodeLatency = Distribution.withSpikes(Distribution.normal(55, 15), 0.05, 200);
+        return c;
+    }
+
+    @Test
+    public void keepsUpWhenEncodingFitsTheFrameInterval() {
+        Report r = PipelineSimulator.run(fixedLatencies(8, 20));
+
+        assertTrue(r.toString(), r.deliveredFps >= 29.5);
+        // capture + encode + one frame interval, plus a little for the viewer's sampling phase
+        assertTrue(r.toString(), r.p95FrameAgeMs <= 70);
+        assertEquals(r.toString(), 0, r.stats.droppedStale);
+        assertEquals(r.toString(), 0, r.stats.failures);
+    }
+
+    @Test
+    public void slowEncoderDropsStaleFramesInsteadOfQueueing() {
+        Report r = PipelineSimulator.run(fixedLatencies(8, 80));
+
+        assertTrue(r.toString(), r.stats.droppedStale > 0);
+        // One encode per 80 ms, and frames don't age in a backlog
+        assertEquals(r.toString(), 12.5, r.deliveredFps, 0.5);
+        assertTrue(r.toString(), r.p95FrameAgeMs <= 200);
+    }
+
+    @Test
+    public void singleEncoderSlotNeverPublishesOutOfOrder() {
+        Report r = PipelineSimulator.run(spikyEncoder(1));
+
+        assertEquals(r.toString(), 0, r.stats.droppedLate);
+        assertTrue(r.toString(), r.stats.published > 0);
+    }
+
+    @Test
+    public void secondEncoderSlotRaisesThroughputAndLowersFrameAge() {
+        Report one = PipelineSimulator.run(spikyEncoder(1));
+        Report two = PipelineSimulator.run(spikyEncoder(2));
+
+        assertTrue(one + " / " + two, two.deliveredFps >= one.deliveredFps * 1.5);
+        assertTrue(one + " / " + two, two.p95FrameAgeMs < one.p95FrameAgeMs);
+    }
+
+    @Test
+    public void buffersAreNeverSharedWhileInUse() {
+        for (int buffers = 1; buffers <= 4; buffers++) {
+            for (int slots = 1; slots <= 3; slots++) {
+                Config c = new Config();
+                c.buffers = buffers;
+                c.encoderSlots = slots;
+                c.captureFailureRate = 0.1;
+                c.captureLatency = Distribution.uniform(2, 60);
+                c.encodeLatency = Distribution.withSpikes(Distribution.uniform(10, 90), 0.05, 300);
+                Report r = PipelineSimulator.run(c);
+
+                String label = buffers + " buffers, " + slots + " slots: " + r;
+                assertEquals(label, 0, r.bufferMisuse);
+                assertTrue(label, r.stats.published > 0);
+                // Every capture is published or dropped; at most the in-flight ones are unaccounted
+                long settled = r.stats.published + r.stats.droppedStale + r.stats.droppedLate;
+                assertTrue(label, settled <= r.stats.captured);
+                assertTrue(label, r.stats.captured - settled <= slots + 1);
+            }
+        }
+    }
+}